@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020-2022 Equinix, Inc
+ * Copyright 2014-2022 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.testing.mysql;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A delimited text file (CSV, TSV, ...) to be bulk loaded into a single table with {@code LOAD DATA LOCAL INFILE}.
+ * See {@link TestingMySqlServer#loadData(String, DataFixture...)}.
+ */
+public final class DataFixture {
+
+    private final String table;
+    private final Path path;
+    private final String resourceName;
+    private final String fieldsTerminatedBy;
+    private final String fieldsEnclosedBy;
+    private final String linesTerminatedBy;
+    private final int ignoreLines;
+    private final List<String> columns;
+    private final boolean failOnWarnings;
+
+    private DataFixture(final Builder builder) {
+        table = builder.table;
+        path = builder.path;
+        resourceName = builder.resourceName;
+        fieldsTerminatedBy = builder.fieldsTerminatedBy;
+        fieldsEnclosedBy = builder.fieldsEnclosedBy;
+        linesTerminatedBy = builder.linesTerminatedBy;
+        ignoreLines = builder.ignoreLines;
+        columns = List.copyOf(builder.columns);
+        failOnWarnings = builder.failOnWarnings;
+    }
+
+    /**
+     * Load {@code table} from a file on disk. Calling {@link Builder#build()} directly will assume a CSV file without
+     * header: fields terminated by ',', optionally enclosed by '"' and lines terminated by '\n'.
+     */
+    public static Builder fromPath(final String table, final Path path) {
+        return new Builder(table, path, null);
+    }
+
+    /**
+     * Load {@code table} from a classpath resource (e.g. {@code "/fixtures/accounts.csv"}). Same defaults as
+     * {@link #fromPath(String, Path)}.
+     */
+    public static Builder fromResource(final String table, final String resourceName) {
+        return new Builder(table, null, resourceName);
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Null if this fixture is loaded from the classpath.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Null if this fixture is loaded from a file on disk.
+     */
+    public String getResourceName() {
+        return resourceName;
+    }
+
+    public boolean isFailOnWarnings() {
+        return failOnWarnings;
+    }
+
+    /**
+     * Build the {@code LOAD DATA LOCAL INFILE} statement reading from {@code file}.
+     */
+    String toLoadDataSql(final Path file) {
+        final StringBuilder sql = new StringBuilder()
+                .append("LOAD DATA LOCAL INFILE ").append(quote(file.toAbsolutePath().toString()))
+                .append(" INTO TABLE ").append(quoteIdentifier(table))
+                .append(" FIELDS TERMINATED BY ").append(quote(fieldsTerminatedBy));
+        if (!fieldsEnclosedBy.isEmpty()) {
+            sql.append(" OPTIONALLY ENCLOSED BY ").append(quote(fieldsEnclosedBy));
+        }
+        sql.append(" LINES TERMINATED BY ").append(quote(linesTerminatedBy));
+        if (ignoreLines > 0) {
+            sql.append(" IGNORE ").append(ignoreLines).append(" LINES");
+        }
+        if (!columns.isEmpty()) {
+            sql.append(" (");
+            for (int i = 0; i < columns.size(); i++) {
+                final String column = columns.get(i);
+                // User variables (e.g. @dummy to skip a field) must not be quoted
+                sql.append(i == 0 ? "" : ", ").append(column.startsWith("@") ? column : quoteIdentifier(column));
+            }
+            sql.append(")");
+        }
+        return sql.toString();
+    }
+
+    private static String quoteIdentifier(final String identifier) {
+        return "`" + identifier.replace("`", "``") + "`";
+    }
+
+    private static String quote(final String value) {
+        return "'" + value.replace("\\", "\\\\")
+                          .replace("'", "\\'")
+                          .replace("\t", "\\t")
+                          .replace("\n", "\\n")
+                          .replace("\r", "\\r") + "'";
+    }
+
+    @Override
+    public String toString() {
+        return table + " <- " + (path != null ? path.toString() : "classpath:" + resourceName);
+    }
+
+    public static final class Builder {
+
+        private final String table;
+        private final Path path;
+        private final String resourceName;
+        private String fieldsTerminatedBy = ",";
+        private String fieldsEnclosedBy = "\"";
+        private String linesTerminatedBy = "\n";
+        private int ignoreLines = 0;
+        private final List<String> columns = new ArrayList<>();
+        private boolean failOnWarnings = true;
+
+        private Builder(final String table, final Path path, final String resourceName) {
+            this.table = table;
+            this.path = path;
+            this.resourceName = resourceName;
+        }
+
+        /**
+         * Shortcut for tab separated files: fields terminated by '\t' and not enclosed.
+         */
+        public Builder tsv() {
+            this.fieldsTerminatedBy = "\t";
+            this.fieldsEnclosedBy = "";
+            return this;
+        }
+
+        public Builder setFieldsTerminatedBy(final String fieldsTerminatedBy) {
+            this.fieldsTerminatedBy = fieldsTerminatedBy;
+            return this;
+        }
+
+        /**
+         * Use an empty string if fields are never enclosed.
+         */
+        public Builder setFieldsEnclosedBy(final String fieldsEnclosedBy) {
+            this.fieldsEnclosedBy = fieldsEnclosedBy;
+            return this;
+        }
+
+        public Builder setLinesTerminatedBy(final String linesTerminatedBy) {
+            this.linesTerminatedBy = linesTerminatedBy;
+            return this;
+        }
+
+        /**
+         * Number of leading lines to skip, e.g. 1 for a CSV header.
+         */
+        public Builder setIgnoreLines(final int ignoreLines) {
+            this.ignoreLines = ignoreLines;
+            return this;
+        }
+
+        /**
+         * Target columns, in file order. By default, all table columns in table order. Names are quoted, except user
+         * variables starting with '@' (e.g. {@code @dummy} to skip a field).
+         */
+        public Builder setColumns(final String... columns) {
+            this.columns.clear();
+            this.columns.addAll(Arrays.asList(columns));
+            return this;
+        }
+
+        /**
+         * {@code LOAD DATA LOCAL} skips duplicate keys and truncates or coerces malformed values with only a warning.
+         * By default, such warnings fail the load; set to false to only log them.
+         */
+        public Builder setFailOnWarnings(final boolean failOnWarnings) {
+            this.failOnWarnings = failOnWarnings;
+            return this;
+        }
+
+        public DataFixture build() {
+            if (table == null || table.isEmpty()) {
+                throw new RuntimeException("'table' in DataFixture is null or empty");
+            }
+            if (path == null && (resourceName == null || resourceName.isEmpty())) {
+                throw new RuntimeException("'path' or 'resourceName' in DataFixture is null or empty");
+            }
+            if (fieldsTerminatedBy == null || fieldsTerminatedBy.isEmpty() || linesTerminatedBy == null || linesTerminatedBy.isEmpty()) {
+                throw new RuntimeException("'fieldsTerminatedBy' and 'linesTerminatedBy' in DataFixture cannot be null or empty");
+            }
+            if (fieldsEnclosedBy == null) {
+                fieldsEnclosedBy = "";
+            }
+
+            return new DataFixture(this);
+        }
+    }
+}
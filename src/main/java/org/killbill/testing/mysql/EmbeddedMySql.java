@@ -16,13 +16,17 @@ package org.killbill.testing.mysql;
 import com.google.common.io.ByteStreams;
 import io.airlift.command.Command;
 import io.airlift.command.CommandFailedException;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.*;
 import java.util.List;
@@ -54,15 +58,23 @@ final class EmbeddedMySql implements Closeable {
     private final Path serverDirectory;
     private final AtomicBoolean closed = new AtomicBoolean();
     private final Process mysqld;
+    private final MySqlCgroup cgroup;
+    private volatile ResourceUsage resourceUsage;
 
     private final int port;
     private final Duration startupWait;
     private final Duration shutdownWait;
     private final Duration commandTimeout;
     private final String jdbcUrl;
+    private final int maxMemoryInMb;
+    private final int maxCpus;
 
     public EmbeddedMySql(final MySqlServerOptions options) throws IOException {
-        serverDirectory = createTempDirectory("testing-mysql-server");
+        if (options.isReapOrphanedInstances()) {
+            OrphanedInstanceReaper.reapOnce(options.getShutdownWait());
+        }
+
+        serverDirectory = createTempDirectory(OrphanedInstanceReaper.DIRECTORY_PREFIX);
         log.info("Starting MySQL server in {}", serverDirectory);
 
         port = options.getPort();
@@ -70,8 +82,13 @@ final class EmbeddedMySql implements Closeable {
         shutdownWait = options.getShutdownWait();
         commandTimeout = options.getCommandTimeout();
         jdbcUrl = options.getRootJdbcUrl();
+        maxMemoryInMb = options.getMaxMemoryInMb();
+        maxCpus = options.getMaxCpus();
 
         try {
+            // Named after the server directory, so that the reaper can tell it apart
+            cgroup = options.getCgroupParent() != null ? MySqlCgroup.create(Path.of(options.getCgroupParent()), serverDirectory.getFileName().toString(), maxMemoryInMb, maxCpus) : null;
+            OrphanedInstanceReaper.writeMarker(serverDirectory);
             unpackMySql(serverDirectory);
             initialize();
             mysqld = startMysqld();
@@ -89,6 +106,13 @@ final class EmbeddedMySql implements Closeable {
         return serverDirectory;
     }
 
+    /**
+     * Null until {@link #close()} has been called.
+     */
+    public ResourceUsage getResourceUsage() {
+        return resourceUsage;
+    }
+
     @Override
     public void close() {
         if (closed.getAndSet(true)) {
@@ -96,17 +120,15 @@ final class EmbeddedMySql implements Closeable {
         }
 
         if (mysqld != null) {
+            resourceUsage = measureResourceUsage(mysqld);
+            log.info("mysqld resource usage: {}", resourceUsage);
+
             log.info("Shutting down mysqld. Waiting up to {} for shutdown to finish.", startupWait);
-            mysqld.destroyForcibly();
-            try {
-                mysqld.waitFor(shutdownWait.toMillis(), MILLISECONDS);
-            } catch (final InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            destroy(mysqld);
+        }
 
-            if (mysqld.isAlive()) {
-                log.error("mysqld is still running in {}", serverDirectory);
-            }
+        if (cgroup != null) {
+            cgroup.close();
         }
 
         try {
@@ -145,24 +167,99 @@ final class EmbeddedMySql implements Closeable {
                 "--innodb-flush-log-at-trx-commit=0",
                 "--innodb-doublewrite=0",
                 "--bind-address=localhost",
+                // Required by TestingMySqlServer#loadData (the driver side is enabled per connection)
+                "--local-infile=1",
                 "--lc_messages_dir", serverDirectory.resolve("share").toString(),
                 "--socket", serverDirectory.resolve("mysql.sock").toString(),
                 "--port", String.valueOf(port),
                 "--datadir", dataDir());
+        args.addAll(budgetArgs(maxMemoryInMb, maxCpus));
 
         final Process process = new ProcessBuilder(args)
                 .redirectErrorStream(true)
                 .start();
 
-        log.info("mysqld started on port {}. Waiting up to {} for startup to finish.", port, startupWait);
+        // Until the marker is written and mysqld is returned, nobody else knows about this process
+        try {
+            if (cgroup != null) {
+                cgroup.addProcess(process);
+            }
+
+            log.info("mysqld started on port {}. Waiting up to {} for startup to finish.", port, startupWait);
 
-        startOutputProcessor(process.getInputStream());
+            OrphanedInstanceReaper.writeMarker(serverDirectory, process, cgroup != null ? cgroup.getDirectory() : null);
 
-        waitForServerStartup(process);
+            startOutputProcessor(process.getInputStream());
+
+            waitForServerStartup(process);
+        } catch (final IOException | RuntimeException e) {
+            destroy(process);
+            throw e;
+        }
 
         return process;
     }
 
+    private void destroy(final Process process) {
+        process.destroyForcibly();
+        try {
+            process.waitFor(shutdownWait.toMillis(), MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (process.isAlive()) {
+            log.error("mysqld is still running in {}", serverDirectory);
+        }
+    }
+
+    /**
+     * mysqld settings matching the memory and CPU budgets, 0 meaning unlimited.
+     */
+    static List<String> budgetArgs(final int maxMemoryInMb, final int maxCpus) {
+        final List<String> args = newArrayList();
+        if (maxMemoryInMb > 0) {
+            // Leave half of the budget for per-connection buffers, the log buffer and the dictionary cache
+            args.add(format("--innodb-buffer-pool-size=%sM", Math.max(5, maxMemoryInMb / 2)));
+            args.add("--performance-schema=OFF");
+        }
+        if (maxCpus > 0) {
+            final int ioThreads = Math.min(64, maxCpus);
+            args.add(format("--thread-cache-size=%s", maxCpus));
+            args.add(format("--innodb-read-io-threads=%s", ioThreads));
+            args.add(format("--innodb-write-io-threads=%s", ioThreads));
+        }
+        return args;
+    }
+
+    private ResourceUsage measureResourceUsage(final Process process) {
+        DataSize peakMemory = cgroup != null ? cgroup.getPeakMemory() : null;
+        if (peakMemory == null) {
+            peakMemory = peakResidentSetSize(process.pid());
+        }
+        Duration cpuTime = cgroup != null ? cgroup.getCpuTime() : null;
+        if (cpuTime == null) {
+            cpuTime = process.info()
+                             .totalCpuDuration()
+                             .map(cpu -> Duration.succinctNanos(cpu.toNanos()))
+                             .orElse(null);
+        }
+        return new ResourceUsage(peakMemory, cpuTime);
+    }
+
+    // Linux only: VmHWM in /proc/<pid>/status, in kB
+    private static DataSize peakResidentSetSize(final long pid) {
+        try {
+            for (final String line : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmHWM:")) {
+                    final long kilobytes = Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+                    return DataSize.of(kilobytes, DataSize.Unit.KILOBYTE).succinct();
+                }
+            }
+        } catch (final IOException | RuntimeException ignored) {
+        }
+        return null;
+    }
+
     private String mysqld() {
         return serverDirectory.resolve("bin").resolve("mysqld").toString();
     }
@@ -195,7 +292,7 @@ final class EmbeddedMySql implements Closeable {
                 Thread.sleep(10);
             } catch (final InterruptedException e) {
                 Thread.currentThread().interrupt();
-                return;
+                throw new InterruptedIOException("interrupted while waiting for mysqld to start");
             }
         }
         throw new IOException("mysqld failed to start after " + startupWait, lastCause);
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2020-2022 Equinix, Inc
+ * Copyright 2014-2022 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.testing.mysql;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.airlift.units.Duration;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * TCP proxy between clients and mysqld, simulating a real network: every chunk of data is delayed by the configured
+ * latency plus a random jitter (order is preserved), throughput is capped per connection and direction, and
+ * connections can randomly be reset. Only a few chunks are buffered per direction, so senders feel backpressure as they
+ * would on a slow network.
+ */
+final class FaultInjectingProxy implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(FaultInjectingProxy.class);
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int QUEUE_CAPACITY = 4;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final ExecutorService executor = newCachedThreadPool(daemonThreadsNamed("testing-mysql-server-proxy-%s"));
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final ServerSocket serverSocket;
+
+    private final int targetPort;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final long bytesPerSecond;
+    private final double resetProbability;
+
+    FaultInjectingProxy(final MySqlServerOptions options) throws IOException {
+        this(options.getProxyPort(),
+             options.getPort(),
+             options.getProxyLatency(),
+             options.getProxyJitter(),
+             options.getProxyBandwidthInKbPerSec() * 1024L,
+             options.getProxyResetProbability());
+    }
+
+    FaultInjectingProxy(final int port, final int targetPort, final Duration latency, final Duration jitter, final long bytesPerSecond, final double resetProbability) throws IOException {
+        this.targetPort = targetPort;
+        this.latencyNanos = latency.roundTo(NANOSECONDS);
+        this.jitterNanos = jitter.roundTo(NANOSECONDS);
+        this.bytesPerSecond = bytesPerSecond;
+        this.resetProbability = resetProbability;
+
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress("localhost", port));
+        log.info("Proxy listening on port {} for mysqld on port {} (latency={}, jitter={}, bandwidth={}B/s, resetProbability={})",
+                 getPort(), targetPort, latency, jitter, bytesPerSecond == 0 ? "unlimited" : bytesPerSecond, resetProbability);
+
+        executor.execute(this::acceptConnections);
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Reset all open connections, as a network failure would.
+     */
+    void resetConnections() {
+        for (final Connection connection : connections) {
+            connection.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed.getAndSet(true)) {
+            return;
+        }
+
+        try {
+            serverSocket.close();
+        } catch (final IOException ignored) {
+        }
+        for (final Connection connection : connections) {
+            connection.close();
+        }
+        executor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!closed.get()) {
+            final Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (final IOException e) {
+                if (!closed.get()) {
+                    log.warn("Proxy failed to accept connection", e);
+                }
+                return;
+            }
+
+            final Socket server;
+            try {
+                server = new Socket("localhost", targetPort);
+            } catch (final IOException e) {
+                log.warn("Proxy failed to connect to mysqld on port {}", targetPort, e);
+                closeQuietly(client);
+                continue;
+            }
+
+            final Connection connection = new Connection(client, server);
+            connections.add(connection);
+            // close() may have run since accept(), and missed this connection
+            if (closed.get()) {
+                connection.close();
+                return;
+            }
+            try {
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                connection.start();
+            } catch (final IOException | RuntimeException e) {
+                // RejectedExecutionException once close() has shut the executor down
+                if (!closed.get()) {
+                    log.warn("Proxy failed to set up connection from {}", client.getRemoteSocketAddress(), e);
+                }
+                connection.close();
+            }
+        }
+    }
+
+    private static void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException ignored) {
+        }
+    }
+
+    private final class Connection {
+
+        private final Socket client;
+        private final Socket server;
+        private final AtomicBoolean connectionClosed = new AtomicBoolean();
+        // Closed once both directions are done
+        private final AtomicInteger openDirections = new AtomicInteger(2);
+
+        private Connection(final Socket client, final Socket server) {
+            this.client = client;
+            this.server = server;
+        }
+
+        private void start() throws IOException {
+            // Get all streams first: once a direction runs, a reset may close both sockets
+            final InputStream clientIn = client.getInputStream();
+            final OutputStream clientOut = client.getOutputStream();
+            final InputStream serverIn = server.getInputStream();
+            final OutputStream serverOut = server.getOutputStream();
+
+            startDirection(clientIn, server, serverOut);
+            startDirection(serverIn, client, clientOut);
+        }
+
+        private void startDirection(final InputStream in, final Socket target, final OutputStream out) {
+            // Bounded, so that a slow (delayed or throttled) writer blocks the reader and, in turn, the sender:
+            // the data stays in socket buffers instead of piling up in the heap, and sender timeouts fire
+            final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            executor.execute(() -> read(in, queue));
+            executor.execute(() -> write(queue, target, out));
+        }
+
+        private void read(final InputStream in, final BlockingQueue<Chunk> queue) {
+            long lastDue = Long.MIN_VALUE;
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (resetProbability > 0 && ThreadLocalRandom.current().nextDouble() < resetProbability) {
+                        log.debug("Proxy resetting connection from {}", client.getRemoteSocketAddress());
+                        reset();
+                        break;
+                    }
+                    // Never deliver a chunk before the previous one, whatever the jitter
+                    final long jitter = jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos + 1) : 0;
+                    lastDue = Math.max(lastDue, System.nanoTime() + latencyNanos + jitter);
+                    if (!enqueue(queue, new Chunk(Arrays.copyOf(buffer, read), lastDue))) {
+                        return;
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final IOException ignored) {
+                // Closed or reset
+            }
+
+            try {
+                enqueue(queue, Chunk.EOF);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * @return false if the connection was closed while waiting for room in the queue
+         */
+        private boolean enqueue(final BlockingQueue<Chunk> queue, final Chunk chunk) throws InterruptedException {
+            while (!connectionClosed.get()) {
+                if (queue.offer(chunk, POLL_INTERVAL_MILLIS, MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void write(final BlockingQueue<Chunk> queue, final Socket target, final OutputStream out) {
+            long nextFree = System.nanoTime();
+            try {
+                while (!connectionClosed.get()) {
+                    final Chunk chunk = queue.poll(POLL_INTERVAL_MILLIS, MILLISECONDS);
+                    if (chunk == null) {
+                        continue;
+                    }
+                    if (chunk == Chunk.EOF) {
+                        target.shutdownOutput();
+                        if (openDirections.decrementAndGet() == 0) {
+                            close();
+                        }
+                        return;
+                    }
+
+                    sleepUntil(chunk.due);
+                    if (bytesPerSecond > 0) {
+                        nextFree = Math.max(nextFree, System.nanoTime()) + chunk.data.length * 1_000_000_000L / bytesPerSecond;
+                        sleepUntil(nextFree);
+                    }
+                    out.write(chunk.data);
+                    out.flush();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final IOException ignored) {
+                // Closed or reset: the other direction can't go on either
+                close();
+            }
+        }
+
+        private void reset() {
+            try {
+                // SO_LINGER=0 makes close() send a RST instead of a FIN
+                client.setSoLinger(true, 0);
+                server.setSoLinger(true, 0);
+            } catch (final IOException ignored) {
+            }
+            close();
+        }
+
+        private void close() {
+            connectionClosed.set(true);
+            connections.remove(this);
+            closeQuietly(client);
+            closeQuietly(server);
+        }
+    }
+
+    private static void sleepUntil(final long deadlineNanos) throws InterruptedException {
+        final long remaining = deadlineNanos - System.nanoTime();
+        if (remaining > 0) {
+            NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    private static final class Chunk {
+
+        private static final Chunk EOF = new Chunk(new byte[0], 0);
+
+        private final byte[] data;
+        private final long due;
+
+        private Chunk(final byte[] data, final long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+}
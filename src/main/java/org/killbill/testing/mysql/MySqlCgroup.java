@@ -0,0 +1,176 @@
+/*
+ * Copyright 2020-2022 Equinix, Inc
+ * Copyright 2014-2022 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.testing.mysql;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * cgroup v2 child group enforcing the memory and CPU budgets of a single mysqld, created under a parent group provided
+ * by the caller (see {@link MySqlServerOptions.Builder#setCgroupParent(String)}).
+ * <p>
+ * The cgroup v2 "no internal process" rule forbids enabling the memory controller for the children of a group which
+ * contains processes, so the group of this JVM can't be used: the parent must be delegated to the current user and
+ * hold no process of its own, e.g. {@code /sys/fs/cgroup/<job>/testing-mysql-server} created by the CI job.
+ */
+final class MySqlCgroup implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MySqlCgroup.class);
+
+    private static final long CPU_PERIOD_MICROS = 100_000;
+
+    private final Path directory;
+
+    private MySqlCgroup(final Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Create {@code name} under {@code parent}, with the memory and CPU limits (0 meaning unlimited).
+     */
+    static MySqlCgroup create(final Path parent, final String name, final int maxMemoryInMb, final int maxCpus) throws IOException {
+        if (!Files.isRegularFile(parent.resolve("cgroup.controllers"))) {
+            throw new IOException(parent + " is not a cgroup v2 group");
+        }
+        if (!Files.isWritable(parent) || !Files.isWritable(parent.resolve("cgroup.subtree_control"))) {
+            throw new IOException("cgroup " + parent + " is not delegated to this user");
+        }
+        if (!Files.readString(parent.resolve("cgroup.procs")).isBlank()) {
+            throw new IOException("cgroup " + parent + " contains processes, controllers can't be enabled for its children");
+        }
+
+        // Left enabled on close: other instances may share the parent
+        enableControllers(parent, maxMemoryInMb > 0, maxCpus > 0);
+
+        final Path directory = parent.resolve(name);
+        Files.createDirectory(directory);
+        final MySqlCgroup cgroup = new MySqlCgroup(directory);
+        try {
+            if (maxMemoryInMb > 0) {
+                cgroup.write("memory.max", String.valueOf(DataSize.of(maxMemoryInMb, DataSize.Unit.MEGABYTE).toBytes()));
+                try {
+                    cgroup.write("memory.swap.max", "0");
+                } catch (final IOException e) {
+                    // Absent without swap accounting (e.g. swapaccount=0)
+                    log.debug("Unable to disable swap for cgroup {}: {}", directory, e.toString());
+                }
+            }
+            if (maxCpus > 0) {
+                cgroup.write("cpu.max", (maxCpus * CPU_PERIOD_MICROS) + " " + CPU_PERIOD_MICROS);
+            }
+        } catch (final IOException | RuntimeException e) {
+            cgroup.close();
+            throw e;
+        }
+        log.info("Created cgroup {}", directory);
+        return cgroup;
+    }
+
+    /**
+     * Enable the memory and cpu controllers for the children of {@code parent}, when available. Without a budget, they
+     * are only used to measure the resource usage.
+     */
+    private static void enableControllers(final Path parent, final boolean memoryRequired, final boolean cpuRequired) throws IOException {
+        final List<String> available = List.of(Files.readString(parent.resolve("cgroup.controllers")).trim().split(" "));
+        if ((memoryRequired && !available.contains("memory")) || (cpuRequired && !available.contains("cpu"))) {
+            throw new IOException("cgroup " + parent + " only has controllers " + available);
+        }
+
+        final List<String> enabled = List.of(Files.readString(parent.resolve("cgroup.subtree_control")).trim().split(" "));
+        final StringBuilder missing = new StringBuilder();
+        for (final String controller : List.of("memory", "cpu")) {
+            if (available.contains(controller) && !enabled.contains(controller)) {
+                missing.append(missing.length() == 0 ? "" : " ").append('+').append(controller);
+            }
+        }
+        if (missing.length() > 0) {
+            Files.writeString(parent.resolve("cgroup.subtree_control"), missing);
+        }
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    void addProcess(final Process process) throws IOException {
+        write("cgroup.procs", String.valueOf(process.pid()));
+    }
+
+    /**
+     * High-water mark of the group memory (kernel 5.19+), null if unknown.
+     */
+    DataSize getPeakMemory() {
+        try {
+            return DataSize.ofBytes(Long.parseLong(Files.readString(directory.resolve("memory.peak")).trim())).succinct();
+        } catch (final IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * CPU time consumed by the group, null if unknown.
+     */
+    Duration getCpuTime() {
+        try {
+            final List<String> lines = Files.readAllLines(directory.resolve("cpu.stat"), StandardCharsets.UTF_8);
+            for (final String line : lines) {
+                if (line.startsWith("usage_usec ")) {
+                    return new Duration(Long.parseLong(line.substring("usage_usec ".length()).trim()), MICROSECONDS).convertToMostSuccinctTimeUnit();
+                }
+            }
+        } catch (final IOException | RuntimeException ignored) {
+        }
+        return null;
+    }
+
+    private void write(final String file, final String value) throws IOException {
+        Files.writeString(directory.resolve(file), value);
+    }
+
+    /**
+     * Remove the group. It must not contain any process anymore.
+     */
+    @Override
+    public void close() {
+        if (!deleteQuietly(directory)) {
+            log.warn("Failed to delete cgroup {}", directory);
+        }
+    }
+
+    static boolean deleteQuietly(final Path directory) {
+        try {
+            // cgroup directories are removed with rmdir, even though they contain (virtual) files
+            Files.deleteIfExists(directory);
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+}
@@ -19,10 +19,15 @@ package org.killbill.testing.mysql;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import io.airlift.units.Duration;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 public final class MySqlServerOptions {
@@ -31,25 +36,52 @@ public final class MySqlServerOptions {
         "%s?" +
         "user=%s&" +
         "password=%s&" +
-        "useSSL=false&allowPublicKeyRetrieval=true&createDatabaseIfNotExist=true&allowMultiQueries=true&permitMysqlScheme=true";
+        "useSSL=false&allowPublicKeyRetrieval=true&%sallowMultiQueries=true&permitMysqlScheme=true";
+
+    private static final String CREATE_DATABASE_IF_NOT_EXIST = "createDatabaseIfNotExist=true&";
 
     private final String username;
     private final String password;
     private final int port;
     private final Set<String> databaseNames;
+    private final boolean lazyDatabaseCreation;
+    private final Map<String, List<String>> schemaScripts;
 
     private final Duration startupWait;
     private final Duration shutdownWait;
     private final Duration commandTimeout;
+    private final boolean reapOrphanedInstances;
+    private final int maxMemoryInMb;
+    private final int maxCpus;
+    private final String cgroupParent;
+
+    private final boolean proxyEnabled;
+    private final int proxyPort;
+    private final Duration proxyLatency;
+    private final Duration proxyJitter;
+    private final int proxyBandwidthInKbPerSec;
+    private final double proxyResetProbability;
 
     private MySqlServerOptions(final Builder builder) {
         username = builder.username;
         password = builder.password;
         port = randomPort();
         databaseNames = builder.databaseNames;
+        lazyDatabaseCreation = builder.lazyDatabaseCreation;
+        schemaScripts = builder.schemaScripts;
         startupWait = builder.startupWait;
         shutdownWait = builder.shutdownWait;
         commandTimeout = builder.commandTimeout;
+        reapOrphanedInstances = builder.reapOrphanedInstances;
+        maxMemoryInMb = builder.maxMemoryInMb;
+        maxCpus = builder.maxCpus;
+        cgroupParent = builder.cgroupParent;
+        proxyEnabled = builder.proxyEnabled;
+        proxyPort = proxyEnabled ? randomPort() : 0;
+        proxyLatency = new Duration(builder.proxyLatencyInMillis, MILLISECONDS);
+        proxyJitter = new Duration(builder.proxyJitterInMillis, MILLISECONDS);
+        proxyBandwidthInKbPerSec = builder.proxyBandwidthInKbPerSec;
+        proxyResetProbability = builder.proxyResetProbability;
     }
 
     private static int randomPort() {
@@ -62,17 +94,35 @@ public final class MySqlServerOptions {
 
     /**
      * Calling this and {@link Builder#build()} will set username=root, password="", startupWait=10s, shutdownWait=10s,
-     * and commandTimeout=10s.
+     * commandTimeout=10s, reapOrphanedInstances=true, eager database creation, no memory or CPU budget, no cgroup and no proxy.
      */
     public static Builder builder(final String... databaseNames) {
         return new Builder(databaseNames);
     }
 
     /**
-     * Construct valid MySql connection string.
+     * Construct valid MySql connection string. The driver creates the database if needed, except with
+     * {@link Builder#setLazyDatabaseCreation(boolean)}: connecting fails with "Unknown database" until
+     * {@link TestingMySqlServer#getJdbcUrl(String)} (or {@code getConnection}, {@code loadData}) has created it along
+     * with its schema scripts.
      */
     public String getJdbcUrl(final String databaseName) {
-        return String.format(JDBC_URL, port, databaseName, username, password);
+        return formatJdbcUrl(port, databaseName);
+    }
+
+    /**
+     * Construct MySql connection string going through the fault injecting proxy, see {@link Builder#setProxyEnabled(boolean)}.
+     */
+    public String getProxiedJdbcUrl(final String databaseName) {
+        if (!proxyEnabled) {
+            throw new IllegalStateException("Proxy is not enabled, see MySqlServerOptions.Builder#setProxyEnabled()");
+        }
+        return formatJdbcUrl(proxyPort, databaseName);
+    }
+
+    // Lazy databases must not be created behind TestingMySqlServer's back, without their schema scripts
+    private String formatJdbcUrl(final int port, final String databaseName) {
+        return String.format(JDBC_URL, port, databaseName, username, password, lazyDatabaseCreation ? "" : CREATE_DATABASE_IF_NOT_EXIST);
     }
 
     /**
@@ -80,7 +130,16 @@ public final class MySqlServerOptions {
      * password=''. For example, {@code EmbeddedMySql#checkReady()} need this for checking server state.
      */
     String getRootJdbcUrl() {
-        return String.format(JDBC_URL, port, "", "root", "");
+        return String.format(JDBC_URL, port, "", "root", "", CREATE_DATABASE_IF_NOT_EXIST);
+    }
+
+    /**
+     * Same as {@link #getJdbcUrl(String)}, but also allows the driver to send local files to the server. This is only
+     * used by {@link TestingMySqlServer#loadData(String, DataFixture...)}, so that regular connections don't get
+     * {@code LOAD DATA LOCAL INFILE} enabled.
+     */
+    String getLocalInfileJdbcUrl(final String databaseName) {
+        return getJdbcUrl(databaseName) + "&allowLoadLocalInfile=true";
     }
 
     public String getUsername() {
@@ -99,6 +158,17 @@ public final class MySqlServerOptions {
         return databaseNames;
     }
 
+    public boolean isLazyDatabaseCreation() {
+        return lazyDatabaseCreation;
+    }
+
+    /**
+     * Classpath resources executed, in order, right after {@code databaseName} is created. Empty if none.
+     */
+    public List<String> getSchemaScripts(final String databaseName) {
+        return schemaScripts.getOrDefault(databaseName, List.of());
+    }
+
     public Duration getStartupWait() {
         return startupWait;
     }
@@ -111,14 +181,80 @@ public final class MySqlServerOptions {
         return commandTimeout;
     }
 
+    public boolean isReapOrphanedInstances() {
+        return reapOrphanedInstances;
+    }
+
+    /**
+     * Memory budget of mysqld, 0 if unlimited.
+     */
+    public int getMaxMemoryInMb() {
+        return maxMemoryInMb;
+    }
+
+    /**
+     * CPU budget of mysqld, 0 if unlimited.
+     */
+    public int getMaxCpus() {
+        return maxCpus;
+    }
+
+    /**
+     * cgroup v2 group under which mysqld gets its own cgroup, null if none.
+     */
+    public String getCgroupParent() {
+        return cgroupParent;
+    }
+
+    public boolean isProxyEnabled() {
+        return proxyEnabled;
+    }
+
+    /**
+     * Port of the fault injecting proxy, 0 if disabled.
+     */
+    public int getProxyPort() {
+        return proxyPort;
+    }
+
+    public Duration getProxyLatency() {
+        return proxyLatency;
+    }
+
+    public Duration getProxyJitter() {
+        return proxyJitter;
+    }
+
+    /**
+     * Proxy throughput per connection and direction, 0 if unlimited.
+     */
+    public int getProxyBandwidthInKbPerSec() {
+        return proxyBandwidthInKbPerSec;
+    }
+
+    public double getProxyResetProbability() {
+        return proxyResetProbability;
+    }
+
     public static final class Builder {
 
         private String username = "root";
         private String password = "";
         private final Set<String> databaseNames;
+        private boolean lazyDatabaseCreation = false;
+        private final Map<String, List<String>> schemaScripts = new HashMap<>();
         private Duration startupWait = new Duration(10, SECONDS);
         private Duration shutdownWait = new Duration(10, SECONDS);
         private Duration commandTimeout = new Duration(30, SECONDS);
+        private boolean reapOrphanedInstances = true;
+        private int maxMemoryInMb = 0;
+        private int maxCpus = 0;
+        private String cgroupParent = null;
+        private boolean proxyEnabled = false;
+        private int proxyLatencyInMillis = 0;
+        private int proxyJitterInMillis = 0;
+        private int proxyBandwidthInKbPerSec = 0;
+        private double proxyResetProbability = 0;
 
         private Builder(final String... databaseNames) {
             this.databaseNames = buildDatabaseNames(databaseNames);
@@ -158,10 +294,125 @@ public final class MySqlServerOptions {
             return this;
         }
 
+        /**
+         * Whether the first server started in this JVM should kill and delete the mysqld instances left behind by JVMs
+         * that died without closing their {@link TestingMySqlServer}.
+         */
+        public Builder setReapOrphanedInstances(final boolean reapOrphanedInstances) {
+            this.reapOrphanedInstances = reapOrphanedInstances;
+            return this;
+        }
+
+        /**
+         * Size mysqld buffers (InnoDB buffer pool, performance schema) to fit in {@code maxMemoryInMb}. With
+         * {@link #setCgroupParent(String)}, this is also enforced as the memory limit of the mysqld cgroup.
+         */
+        public Builder setMaxMemoryInMb(final int maxMemoryInMb) {
+            this.maxMemoryInMb = maxMemoryInMb;
+            return this;
+        }
+
+        /**
+         * Size mysqld thread pools (thread cache, InnoDB I/O threads) to {@code maxCpus}. With
+         * {@link #setCgroupParent(String)}, this is also enforced as the CPU quota of the mysqld cgroup.
+         */
+        public Builder setMaxCpus(final int maxCpus) {
+            this.maxCpus = maxCpus;
+            return this;
+        }
+
+        /**
+         * Run mysqld in its own cgroup, created under {@code cgroupParent} (e.g. {@code "/sys/fs/cgroup/ci/mysql"}),
+         * which enforces the memory and CPU budgets and measures the {@link TestingMySqlServer#getResourceUsage()}.
+         * The parent must be a cgroup v2 group delegated to the current user and must not contain any process itself:
+         * the kernel doesn't allow enabling the memory controller for the children of a group with processes, which
+         * rules out the group of the JVM. Starting the server fails if the cgroup can't be set up.
+         */
+        public Builder setCgroupParent(final String cgroupParent) {
+            this.cgroupParent = cgroupParent;
+            return this;
+        }
+
+        /**
+         * Start a local TCP proxy in front of mysqld, reachable through {@link MySqlServerOptions#getProxiedJdbcUrl(String)},
+         * to simulate network latency and failures. Direct connections through {@link MySqlServerOptions#getJdbcUrl(String)}
+         * are not affected.
+         */
+        public Builder setProxyEnabled(final boolean proxyEnabled) {
+            this.proxyEnabled = proxyEnabled;
+            return this;
+        }
+
+        /**
+         * Delay added by the proxy to every packet, in each direction.
+         */
+        public Builder setProxyLatency(final int proxyLatencyInMillis) {
+            this.proxyLatencyInMillis = proxyLatencyInMillis;
+            return this;
+        }
+
+        /**
+         * Random extra delay, between 0 and {@code proxyJitterInMillis}, added to the latency of every packet.
+         */
+        public Builder setProxyJitter(final int proxyJitterInMillis) {
+            this.proxyJitterInMillis = proxyJitterInMillis;
+            return this;
+        }
+
+        public Builder setProxyBandwidthInKbPerSec(final int proxyBandwidthInKbPerSec) {
+            this.proxyBandwidthInKbPerSec = proxyBandwidthInKbPerSec;
+            return this;
+        }
+
+        /**
+         * Probability, between 0 and 1, for the proxy to reset a connection instead of forwarding a packet.
+         */
+        public Builder setProxyResetProbability(final double proxyResetProbability) {
+            this.proxyResetProbability = proxyResetProbability;
+            return this;
+        }
+
+        /**
+         * Create each database (and run its schema scripts) the first time it is requested through
+         * {@link TestingMySqlServer#getJdbcUrl(String)}, {@link TestingMySqlServer#getConnection(String)} or
+         * {@link TestingMySqlServer#loadData(String, DataFixture...)}, instead of at startup.
+         */
+        public Builder setLazyDatabaseCreation(final boolean lazyDatabaseCreation) {
+            this.lazyDatabaseCreation = lazyDatabaseCreation;
+            return this;
+        }
+
+        /**
+         * Run the classpath resource {@code resourceName} (e.g. {@code "/ddl/accounts.sql"}) right after
+         * {@code databaseName} is created. Scripts may contain multiple statements.
+         */
+        public Builder addSchemaScript(final String databaseName, final String resourceName) {
+            this.schemaScripts.computeIfAbsent(databaseName, name -> new ArrayList<>()).add(resourceName);
+            return this;
+        }
+
         public MySqlServerOptions build() {
-            if (databaseNames.isEmpty()) {
+            // Lazy instances can get their databases later, see TestingMySqlServer#registerDatabase()
+            if (databaseNames.isEmpty() && !lazyDatabaseCreation) {
                 throw new RuntimeException("'databaseNames' in MySqlServerOptions#builder(databaseNames) is null or empty");
             }
+            if (maxMemoryInMb < 0 || maxCpus < 0) {
+                throw new RuntimeException("'maxMemoryInMb' and 'maxCpus' in MySqlServerOptions cannot be negative");
+            }
+            if (cgroupParent != null && cgroupParent.isEmpty()) {
+                throw new RuntimeException("'cgroupParent' in MySqlServerOptions cannot be empty");
+            }
+            if (proxyLatencyInMillis < 0 || proxyJitterInMillis < 0 || proxyBandwidthInKbPerSec < 0) {
+                throw new RuntimeException("'proxyLatency', 'proxyJitter' and 'proxyBandwidthInKbPerSec' in MySqlServerOptions cannot be negative");
+            }
+            if (proxyResetProbability < 0 || proxyResetProbability > 1) {
+                throw new RuntimeException("'proxyResetProbability' in MySqlServerOptions must be between 0 and 1");
+            }
+            for (final String databaseName : schemaScripts.keySet()) {
+                if (!databaseNames.contains(databaseName)) {
+                    throw new RuntimeException("Schema scripts declared for unknown database '" + databaseName + "'");
+                }
+            }
 
             return new MySqlServerOptions(this);
         }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2020-2022 Equinix, Inc
+ * Copyright 2014-2022 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.testing.mysql;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.airlift.units.Duration;
+
+import static com.google.common.io.MoreFiles.deleteRecursively;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Cleans up after JVMs that died without calling {@link EmbeddedMySql#close()}: every server directory contains a
+ * marker file with the PID of the owning JVM and of its mysqld. Directories whose owner is gone get their mysqld killed
+ * and are deleted, along with the mysqld cgroup if any.
+ */
+final class OrphanedInstanceReaper {
+
+    private static final Logger log = LoggerFactory.getLogger(OrphanedInstanceReaper.class);
+
+    static final String DIRECTORY_PREFIX = "testing-mysql-server";
+    static final String MARKER_FILE = "instance.properties";
+
+    private static final String OWNER_PID = "owner.pid";
+    private static final String OWNER_START = "owner.start";
+    private static final String MYSQLD_PID = "mysqld.pid";
+    private static final String CGROUP = "cgroup";
+
+    private static final AtomicBoolean reaped = new AtomicBoolean();
+
+    private OrphanedInstanceReaper() {
+    }
+
+    /**
+     * Reap orphaned instances in {@code java.io.tmpdir}, at most once per JVM.
+     */
+    static void reapOnce(final Duration shutdownWait) {
+        if (reaped.getAndSet(true)) {
+            return;
+        }
+        reap(Path.of(System.getProperty("java.io.tmpdir")), shutdownWait);
+    }
+
+    /**
+     * @return the number of reaped instances
+     */
+    static int reap(final Path tempDirectory, final Duration shutdownWait) {
+        int count = 0;
+        try (final DirectoryStream<Path> directories = Files.newDirectoryStream(tempDirectory, DIRECTORY_PREFIX + "*")) {
+            for (final Path directory : directories) {
+                if (Files.isDirectory(directory) && reapIfOrphaned(directory, shutdownWait)) {
+                    count++;
+                }
+            }
+        } catch (final IOException e) {
+            log.warn("Failed to scan {} for orphaned MySQL servers", tempDirectory, e);
+        }
+        return count;
+    }
+
+    private static boolean reapIfOrphaned(final Path directory, final Duration shutdownWait) {
+        final Marker marker;
+        final Path realDirectory;
+        try {
+            marker = readMarker(directory);
+            // ProcessHandle.Info#command() is a resolved path, while java.io.tmpdir may be a symlink (e.g. on macOS)
+            realDirectory = directory.toRealPath();
+        } catch (final IOException | RuntimeException e) {
+            // No marker (yet), or not one of ours: leave it alone
+            log.debug("Skipping {}: {}", directory, e.toString());
+            return false;
+        }
+
+        if (isAlive(marker.ownerPid, marker.ownerStart)) {
+            return false;
+        }
+
+        log.info("Reaping MySQL server in {} left behind by dead process {}", directory, marker.ownerPid);
+        final Optional<ProcessHandle> mysqld = marker.mysqldPid.flatMap(ProcessHandle::of).filter(ProcessHandle::isAlive);
+        if (mysqld.isPresent()) {
+            // Only kill the process if we can tell it was started from this directory, the PID may have been reused
+            final Optional<String> command = mysqld.get().info().command();
+            if (command.isEmpty()) {
+                log.warn("Unable to tell whether process {} is the mysqld of {}, leaving it alone", mysqld.get().pid(), directory);
+                return false;
+            }
+            if (command.get().startsWith(realDirectory.toString()) && !kill(mysqld.get(), shutdownWait)) {
+                // Keep the directory around, so that the leak stays visible and is retried next time
+                return false;
+            }
+        }
+
+        // The cgroup is named after the server directory, don't touch anything else
+        marker.cgroup.filter(cgroup -> cgroup.getFileName().equals(directory.getFileName()))
+                     .ifPresent(MySqlCgroup::deleteQuietly);
+
+        try {
+            deleteRecursively(directory, ALLOW_INSECURE);
+        } catch (final IOException e) {
+            log.warn("Failed to delete {}", directory);
+        }
+        return true;
+    }
+
+    private static boolean isAlive(final long pid, final Optional<Instant> expectedStart) {
+        final Optional<ProcessHandle> process = ProcessHandle.of(pid);
+        if (process.isEmpty() || !process.get().isAlive()) {
+            return false;
+        }
+        // Guard against PID reuse: a different process started at a different time
+        final Optional<Instant> start = process.get().info().startInstant();
+        return expectedStart.isEmpty() || start.isEmpty() || start.get().equals(expectedStart.get());
+    }
+
+    /**
+     * @return whether mysqld is gone
+     */
+    private static boolean kill(final ProcessHandle mysqld, final Duration shutdownWait) {
+        log.info("Killing orphaned mysqld {}", mysqld.pid());
+        mysqld.destroyForcibly();
+        try {
+            mysqld.onExit().get(shutdownWait.toMillis(), MILLISECONDS);
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException | TimeoutException e) {
+            log.warn("Orphaned mysqld {} is still running", mysqld.pid());
+        }
+        return !mysqld.isAlive();
+    }
+
+    /**
+     * Record the current JVM as the owner of {@code directory}.
+     */
+    static void writeMarker(final Path directory) throws IOException {
+        writeMarker(directory, null, null);
+    }
+
+    /**
+     * Record the current JVM as the owner of {@code directory}, and {@code mysqld} as its server process, running in
+     * {@code cgroup} if not null.
+     */
+    static void writeMarker(final Path directory, final Process mysqld, final Path cgroup) throws IOException {
+        final ProcessHandle owner = ProcessHandle.current();
+        final Properties marker = new Properties();
+        marker.setProperty(OWNER_PID, String.valueOf(owner.pid()));
+        owner.info().startInstant().ifPresent(start -> marker.setProperty(OWNER_START, start.toString()));
+        if (mysqld != null) {
+            marker.setProperty(MYSQLD_PID, String.valueOf(mysqld.pid()));
+        }
+        if (cgroup != null) {
+            marker.setProperty(CGROUP, cgroup.toString());
+        }
+
+        // Write then rename, so that a concurrent reaper never sees a partial file
+        final Path temp = Files.createTempFile(directory, MARKER_FILE, null);
+        try (final OutputStream out = Files.newOutputStream(temp)) {
+            marker.store(out, null);
+        }
+        Files.move(temp, directory.resolve(MARKER_FILE), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    // Any malformed value throws, and the directory is skipped
+    private static Marker readMarker(final Path directory) throws IOException {
+        final Properties properties = new Properties();
+        try (final InputStream in = Files.newInputStream(directory.resolve(MARKER_FILE))) {
+            properties.load(in);
+        }
+        final String ownerPid = properties.getProperty(OWNER_PID);
+        if (ownerPid == null) {
+            throw new IOException("missing " + OWNER_PID);
+        }
+        return new Marker(Long.parseLong(ownerPid),
+                          Optional.ofNullable(properties.getProperty(OWNER_START)).map(Instant::parse),
+                          Optional.ofNullable(properties.getProperty(MYSQLD_PID)).map(Long::parseLong),
+                          Optional.ofNullable(properties.getProperty(CGROUP)).map(Path::of));
+    }
+
+    private static final class Marker {
+
+        private final long ownerPid;
+        private final Optional<Instant> ownerStart;
+        private final Optional<Long> mysqldPid;
+        private final Optional<Path> cgroup;
+
+        private Marker(final long ownerPid, final Optional<Instant> ownerStart, final Optional<Long> mysqldPid, final Optional<Path> cgroup) {
+            this.ownerPid = ownerPid;
+            this.ownerStart = ownerStart;
+            this.mysqldPid = mysqldPid;
+            this.cgroup = cgroup;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020-2022 Equinix, Inc
+ * Copyright 2014-2022 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.testing.mysql;
+
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+
+/**
+ * Resources consumed by mysqld over its lifetime, measured when the server is closed. Each value is null when it
+ * couldn't be measured on this platform.
+ */
+public final class ResourceUsage {
+
+    private final DataSize peakMemory;
+    private final Duration cpuTime;
+
+    ResourceUsage(final DataSize peakMemory, final Duration cpuTime) {
+        this.peakMemory = peakMemory;
+        this.cpuTime = cpuTime;
+    }
+
+    /**
+     * Peak memory: the cgroup high-water mark if mysqld ran in its own cgroup, its peak resident set size otherwise.
+     */
+    public DataSize getPeakMemory() {
+        return peakMemory;
+    }
+
+    /**
+     * Total (user and system) CPU time.
+     */
+    public Duration getCpuTime() {
+        return cpuTime;
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("peakMemory", peakMemory)
+                .add("cpuTime", cpuTime)
+                .toString();
+    }
+}
@@ -15,21 +15,57 @@
 package org.killbill.testing.mysql;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
 public final class TestingMySqlServer implements Closeable {
 
     private static final Logger log = LoggerFactory.getLogger(TestingMySqlServer.class);
 
+    private static final int MAX_REPORTED_WARNINGS = 10;
+
+    private final MySqlServerOptions options;
     private final String version;
     private final EmbeddedMySql server;
+    private final FaultInjectingProxy proxy;
+    private final boolean performanceSchema;
+
+    // Declared or registered databases, with their schema scripts
+    private final Map<String, List<String>> databases = new ConcurrentHashMap<>();
+    // Guarded by this
+    private final Set<String> createdDatabaseNames = new HashSet<>();
+    private final Set<String> usedDatabaseNames = ConcurrentHashMap.newKeySet();
 
     public TestingMySqlServer(final MySqlServerOptions options) throws Exception {
+        this.options = options;
+        for (final String database : options.getDatabaseNames()) {
+            databases.put(database, options.getSchemaScripts(database));
+        }
         log.info("Will start MySQL server for testing with database: {} at: {}",
                  options.getDatabaseNames().toString(),
                  options.getJdbcUrl("<see-previous-db-list>"));
@@ -41,12 +77,22 @@ public final class TestingMySqlServer implements Closeable {
             try (final Statement statement = connection.createStatement()) {
                 execute(statement, String.format("CREATE USER '%s'@'%%' IDENTIFIED WITH mysql_native_password BY '%s'", options.getUsername(), options.getPassword()));
                 execute(statement, String.format("GRANT ALL ON *.* to '%s'@'%%' WITH GRANT OPTION", options.getUsername()));
+            }
+            if (!options.isLazyDatabaseCreation()) {
                 for (final String database : options.getDatabaseNames()) {
-                    execute(statement, String.format("CREATE DATABASE %s", database));
+                    createDatabase(database);
                 }
             }
+            performanceSchema = resetUsageStatistics(connection);
         } catch (final SQLException e) {
-            close();
+            server.close();
+            throw e;
+        }
+
+        try {
+            proxy = options.isProxyEnabled() ? new FaultInjectingProxy(options) : null;
+        } catch (final IOException e) {
+            server.close();
             throw e;
         }
 
@@ -58,8 +104,253 @@ public final class TestingMySqlServer implements Closeable {
         statement.execute(sql);
     }
 
+    /**
+     * Declare an additional database, created (with its schema scripts) the first time it is requested through
+     * {@link #getJdbcUrl(String)}, {@link #getConnection(String)} or {@link #loadData(String, DataFixture...)}.
+     */
+    public void registerDatabase(final String databaseName, final String... schemaScripts) {
+        if (databases.putIfAbsent(databaseName, List.of(schemaScripts)) != null) {
+            throw new IllegalArgumentException("Database already declared: " + databaseName);
+        }
+    }
+
+    /**
+     * Same as {@link MySqlServerOptions#getJdbcUrl(String)}, but also creates the database if it was declared lazily
+     * and records it as used, see {@link #getUsedDatabaseNames()}.
+     */
+    public String getJdbcUrl(final String databaseName) throws SQLException {
+        useDatabase(databaseName);
+        return options.getJdbcUrl(databaseName);
+    }
+
+    /**
+     * Open a connection to {@code databaseName}, creating it first if it was declared lazily.
+     */
+    public Connection getConnection(final String databaseName) throws SQLException {
+        return DriverManager.getConnection(getJdbcUrl(databaseName));
+    }
+
+    /**
+     * Declared (or registered) databases used so far: requested through {@link #getJdbcUrl(String)},
+     * {@link #getConnection(String)} or {@link #loadData(String, DataFixture...)}, lazily created, or used by any
+     * connection according to the performance schema (statements run with it as default database, or table accesses).
+     * Declared databases missing from this set can be removed from the test setup.
+     * <p>
+     * When the performance schema is disabled (see {@link MySqlServerOptions.Builder#setMaxMemoryInMb(int)}), direct
+     * use can't be detected and all eagerly created databases are reported as used.
+     */
+    public Set<String> getUsedDatabaseNames() throws SQLException {
+        final Set<String> used = new HashSet<>(usedDatabaseNames);
+        try (final Connection connection = server.getMySqlDatabase();
+             final Statement statement = connection.createStatement()) {
+            if (options.isLazyDatabaseCreation()) {
+                // Lazy databases only exist once requested (MySqlServerOptions#getJdbcUrl() doesn't create them)
+                addDatabaseNames(statement, "SELECT SCHEMA_NAME FROM information_schema.SCHEMATA", used);
+            }
+            if (performanceSchema) {
+                addDatabaseNames(statement,
+                                 "SELECT SCHEMA_NAME FROM performance_schema.events_statements_summary_by_digest WHERE SCHEMA_NAME IS NOT NULL " +
+                                 "UNION SELECT OBJECT_SCHEMA FROM performance_schema.table_io_waits_summary_by_table WHERE COUNT_STAR > 0",
+                                 used);
+            } else if (!options.isLazyDatabaseCreation()) {
+                used.addAll(options.getDatabaseNames());
+            }
+        }
+        used.retainAll(databases.keySet());
+        return used;
+    }
+
+    private static void addDatabaseNames(final Statement statement, final String sql, final Set<String> databaseNames) throws SQLException {
+        try (final ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                databaseNames.add(resultSet.getString(1));
+            }
+        }
+    }
+
+    /**
+     * Forget the statements run while setting up the server (e.g. schema scripts), so that usage statistics only
+     * reflect the tests.
+     *
+     * @return whether the performance schema is enabled
+     */
+    private static boolean resetUsageStatistics(final Connection connection) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            try (final ResultSet resultSet = statement.executeQuery("SELECT @@performance_schema")) {
+                if (!resultSet.next() || !resultSet.getBoolean(1)) {
+                    return false;
+                }
+            }
+            execute(statement, "TRUNCATE TABLE performance_schema.events_statements_summary_by_digest");
+            execute(statement, "TRUNCATE TABLE performance_schema.table_io_waits_summary_by_table");
+            return true;
+        }
+    }
+
+    private void useDatabase(final String databaseName) throws SQLException {
+        if (!databases.containsKey(databaseName)) {
+            throw new IllegalArgumentException("Unknown database: " + databaseName + ", see MySqlServerOptions#builder(databaseNames) and #registerDatabase()");
+        }
+        createDatabase(databaseName);
+        if (usedDatabaseNames.add(databaseName)) {
+            log.debug("First use of database {}", databaseName);
+        }
+    }
+
+    private synchronized void createDatabase(final String databaseName) throws SQLException {
+        if (createdDatabaseNames.contains(databaseName)) {
+            return;
+        }
+
+        try (final Connection connection = server.getMySqlDatabase();
+             final Statement statement = connection.createStatement()) {
+            execute(statement, String.format("CREATE DATABASE %s", databaseName));
+            final List<String> schemaScripts = databases.get(databaseName);
+            if (!schemaScripts.isEmpty()) {
+                try {
+                    execute(statement, String.format("USE %s", databaseName));
+                    for (final String schemaScript : schemaScripts) {
+                        executeScript(statement, schemaScript);
+                    }
+                } catch (final SQLException | RuntimeException e) {
+                    // Otherwise the next attempt would fail with "database exists", or the database be half initialized
+                    try {
+                        execute(statement, String.format("DROP DATABASE %s", databaseName));
+                    } catch (final SQLException dropFailure) {
+                        e.addSuppressed(dropFailure);
+                    }
+                    throw e;
+                }
+            }
+        }
+        createdDatabaseNames.add(databaseName);
+    }
+
+    private static void executeScript(final Statement statement, final String resourceName) throws SQLException {
+        final URL url = TestingMySqlServer.class.getResource(resourceName);
+        if (url == null) {
+            throw new SQLException("schema script not found: " + resourceName);
+        }
+
+        final String sql;
+        try (final InputStream in = url.openStream()) {
+            sql = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            throw new SQLException("Failed to read schema script " + resourceName, e);
+        }
+
+        log.debug("Executing script: {}", resourceName);
+        // Scripts may contain multiple statements (allowMultiQueries=true): drain all results so that errors surface
+        boolean hasResultSet = statement.execute(sql);
+        while (hasResultSet || statement.getUpdateCount() != -1) {
+            hasResultSet = statement.getMoreResults();
+        }
+    }
+
+    /**
+     * Bulk load delimited files into tables of {@code databaseName} with {@code LOAD DATA LOCAL INFILE}. Tables are
+     * loaded in parallel, each on its own connection with foreign key checks, unique checks and binary logging
+     * disabled while loading. Target tables must already exist.
+     * <p>
+     * {@code LOAD DATA LOCAL} skips duplicate keys and coerces malformed values with only a warning: unless
+     * {@link DataFixture.Builder#setFailOnWarnings(boolean)} is turned off, any warning fails the load.
+     */
+    public void loadData(final String databaseName, final DataFixture... fixtures) throws SQLException {
+        useDatabase(databaseName);
+        if (fixtures.length == 0) {
+            return;
+        }
+
+        final int threads = Math.min(fixtures.length, Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = newFixedThreadPool(threads, daemonThreadsNamed("testing-mysql-server-loader-%s"));
+        try {
+            final List<Future<Long>> futures = new ArrayList<>(fixtures.length);
+            for (final DataFixture fixture : fixtures) {
+                futures.add(executor.submit(() -> loadData(databaseName, fixture)));
+            }
+            for (int i = 0; i < fixtures.length; i++) {
+                try {
+                    final long rows = futures.get(i).get();
+                    log.info("Loaded {} rows: {}", rows, fixtures[i]);
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof SQLException) {
+                        throw (SQLException) e.getCause();
+                    }
+                    throw new SQLException("Failed to load " + fixtures[i], e.getCause());
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while loading " + fixtures[i], e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long loadData(final String databaseName, final DataFixture fixture) throws SQLException, IOException {
+        final Path file = fixture.getPath() != null ? fixture.getPath() : copyResource(fixture.getResourceName());
+        try (final Connection connection = DriverManager.getConnection(options.getLocalInfileJdbcUrl(databaseName));
+             final Statement statement = connection.createStatement()) {
+            execute(statement, "SET SESSION foreign_key_checks = 0, unique_checks = 0, sql_log_bin = 0");
+            final String sql = fixture.toLoadDataSql(file);
+            log.debug("Executing: {}", sql);
+            final long rows = statement.executeLargeUpdate(sql);
+            checkWarnings(statement, fixture);
+            return rows;
+        } finally {
+            if (fixture.getPath() == null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static void checkWarnings(final Statement statement, final DataFixture fixture) throws SQLException {
+        final List<String> warnings = new ArrayList<>();
+        try (final ResultSet resultSet = statement.executeQuery("SHOW WARNINGS LIMIT " + MAX_REPORTED_WARNINGS)) {
+            while (resultSet.next()) {
+                warnings.add(String.format("%s %s: %s", resultSet.getString("Level"), resultSet.getInt("Code"), resultSet.getString("Message")));
+            }
+        }
+        if (warnings.isEmpty()) {
+            return;
+        }
+
+        final String message = String.format("Loading %s produced warnings (rows may have been skipped or coerced): %s", fixture, warnings);
+        if (fixture.isFailOnWarnings()) {
+            throw new SQLException(message);
+        }
+        log.warn(message);
+    }
+
+    // The driver needs a file name, so classpath fixtures are streamed to a temporary file in the server directory first
+    private Path copyResource(final String resourceName) throws IOException {
+        final URL url = TestingMySqlServer.class.getResource(resourceName);
+        if (url == null) {
+            throw new IOException("fixture not found: " + resourceName);
+        }
+
+        final Path file = Files.createTempFile(server.getServerDirectory(), "fixture-", null);
+        try (final InputStream in = url.openStream()) {
+            Files.copy(in, file, REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    /**
+     * Reset all connections currently open through the proxy, see {@link MySqlServerOptions#getProxiedJdbcUrl(String)}.
+     */
+    public void resetProxyConnections() {
+        if (proxy == null) {
+            throw new IllegalStateException("Proxy is not enabled, see MySqlServerOptions.Builder#setProxyEnabled()");
+        }
+        proxy.resetConnections();
+    }
+
     @Override
     public void close() {
+        if (proxy != null) {
+            proxy.close();
+        }
         server.close();
     }
 
@@ -70,6 +361,13 @@ public final class TestingMySqlServer implements Closeable {
         return version;
     }
 
+    /**
+     * Get the peak memory and CPU time used by mysqld. Only available after {@link #close()}, null before.
+     */
+    public ResourceUsage getResourceUsage() {
+        return server.getResourceUsage();
+    }
+
     /**
      * Get MySQL server directory.
      */
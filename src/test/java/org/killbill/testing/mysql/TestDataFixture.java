@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020-2022 Equinix, Inc
+ * Copyright 2014-2022 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.testing.mysql;
+
+import java.nio.file.Path;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestDataFixture {
+
+    @Test
+    public void testCsv() {
+        final DataFixture fixture = DataFixture.fromResource("person", "/fixtures/person.csv")
+                                               .setIgnoreLines(1)
+                                               .setColumns("id", "name")
+                                               .build();
+        Assert.assertEquals(fixture.toLoadDataSql(Path.of("/tmp/it's.csv")),
+                            "LOAD DATA LOCAL INFILE '/tmp/it\\'s.csv' INTO TABLE `person` FIELDS TERMINATED BY ',' " +
+                            "OPTIONALLY ENCLOSED BY '\"' LINES TERMINATED BY '\\n' IGNORE 1 LINES (`id`, `name`)");
+    }
+
+    @Test
+    public void testTsv() {
+        final DataFixture fixture = DataFixture.fromPath("size", Path.of("/tmp/size.tsv")).tsv().build();
+        Assert.assertEquals(fixture.toLoadDataSql(fixture.getPath()),
+                            "LOAD DATA LOCAL INFILE '/tmp/size.tsv' INTO TABLE `size` FIELDS TERMINATED BY '\\t' " +
+                            "LINES TERMINATED BY '\\n'");
+    }
+
+    @Test
+    public void testQuoteTable() {
+        final DataFixture fixture = DataFixture.fromPath("odd`name", Path.of("/tmp/odd.csv")).build();
+        Assert.assertTrue(fixture.isFailOnWarnings());
+        Assert.assertTrue(fixture.toLoadDataSql(fixture.getPath()).contains(" INTO TABLE `odd``name` "));
+    }
+
+    @Test
+    public void testQuoteColumns() {
+        final DataFixture fixture = DataFixture.fromPath("orders", Path.of("/tmp/orders.csv")).setColumns("id", "order", "@dummy").build();
+        Assert.assertTrue(fixture.toLoadDataSql(fixture.getPath()).endsWith(" (`id`, `order`, @dummy)"));
+    }
+
+    @Test
+    public void testValidation() {
+        try {
+            DataFixture.fromResource("person", null).build();
+            Assert.fail("RuntimeException should be thrown");
+        } catch (final RuntimeException e) {
+            Assert.assertEquals(e.getMessage(), "'path' or 'resourceName' in DataFixture is null or empty");
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020-2022 Equinix, Inc
+ * Copyright 2014-2022 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.testing.mysql;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import io.airlift.units.Duration;
+
+public class TestFaultInjectingProxy {
+
+    private static final Duration NONE = new Duration(0, TimeUnit.MILLISECONDS);
+
+    private ServerSocket echoServer;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        echoServer = new ServerSocket();
+        echoServer.bind(new InetSocketAddress("localhost", 0));
+        final Thread thread = new Thread(() -> {
+            while (!echoServer.isClosed()) {
+                try {
+                    final Socket socket = echoServer.accept();
+                    final Thread echo = new Thread(() -> {
+                        try (socket) {
+                            socket.getInputStream().transferTo(socket.getOutputStream());
+                        } catch (final IOException ignored) {
+                        }
+                    });
+                    echo.setDaemon(true);
+                    echo.start();
+                } catch (final IOException ignored) {
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        echoServer.close();
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        try (final FaultInjectingProxy proxy = new FaultInjectingProxy(0, echoServer.getLocalPort(), new Duration(100, TimeUnit.MILLISECONDS), NONE, 0, 0);
+             final Socket socket = new Socket("localhost", proxy.getPort())) {
+            final long start = System.nanoTime();
+            Assert.assertEquals(roundTrip(socket, "ping"), "ping");
+            // Delayed on the way to the server, and on the way back
+            Assert.assertTrue(Duration.nanosSince(start).toMillis() >= 200);
+        }
+    }
+
+    @Test
+    public void testBandwidth() throws Exception {
+        try (final FaultInjectingProxy proxy = new FaultInjectingProxy(0, echoServer.getLocalPort(), NONE, NONE, 10 * 1024, 0);
+             final Socket socket = new Socket("localhost", proxy.getPort())) {
+            final long start = System.nanoTime();
+            Assert.assertEquals(roundTrip(socket, "x".repeat(2048)).length(), 2048);
+            // 2KB at 10KB/s, twice
+            Assert.assertTrue(Duration.nanosSince(start).toMillis() >= 400);
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        try (final FaultInjectingProxy proxy = new FaultInjectingProxy(0, echoServer.getLocalPort(), NONE, NONE, 10 * 1024, 0);
+             final Socket socket = new Socket("localhost", proxy.getPort())) {
+            // Much more than what socket buffers can hold: the writer must block instead of the proxy buffering it all
+            final Thread writer = new Thread(() -> {
+                try {
+                    socket.getOutputStream().write(new byte[64 * 1024 * 1024]);
+                } catch (final IOException ignored) {
+                }
+            });
+            writer.setDaemon(true);
+            writer.start();
+            writer.join(2000);
+            Assert.assertTrue(writer.isAlive());
+        }
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        try (final FaultInjectingProxy proxy = new FaultInjectingProxy(0, echoServer.getLocalPort(), NONE, NONE, 0, 0);
+             final Socket socket = new Socket("localhost", proxy.getPort())) {
+            Assert.assertEquals(roundTrip(socket, "ping"), "ping");
+            proxy.resetConnections();
+            try {
+                roundTrip(socket, "ping");
+                Assert.fail("IOException should be thrown");
+            } catch (final IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testResetProbability() throws Exception {
+        try (final FaultInjectingProxy proxy = new FaultInjectingProxy(0, echoServer.getLocalPort(), NONE, NONE, 0, 1);
+             final Socket socket = new Socket("localhost", proxy.getPort())) {
+            try {
+                roundTrip(socket, "ping");
+                Assert.fail("IOException should be thrown");
+            } catch (final IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testCloseWhileConnecting() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            final FaultInjectingProxy proxy = new FaultInjectingProxy(0, echoServer.getLocalPort(), NONE, NONE, 0, 0);
+            try (final Socket socket = new Socket("localhost", proxy.getPort())) {
+                // Races with the setup of the connection: it must end up closed either way, never left open
+                proxy.close();
+                socket.setSoTimeout(10_000);
+                try {
+                    roundTrip(socket, "ping");
+                    Assert.fail("IOException should be thrown");
+                } catch (final IOException expected) {
+                }
+            }
+        }
+    }
+
+    private static String roundTrip(final Socket socket, final String message) throws IOException {
+        final OutputStream out = socket.getOutputStream();
+        out.write(message.getBytes());
+        out.flush();
+
+        final InputStream in = socket.getInputStream();
+        final byte[] buffer = new byte[message.length()];
+        int offset = 0;
+        while (offset < buffer.length) {
+            final int read = in.read(buffer, offset, buffer.length - offset);
+            if (read == -1) {
+                throw new IOException("connection closed");
+            }
+            offset += read;
+        }
+        return new String(buffer);
+    }
+}
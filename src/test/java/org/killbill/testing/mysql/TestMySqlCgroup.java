@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020-2022 Equinix, Inc
+ * Copyright 2014-2022 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.testing.mysql;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import static com.google.common.io.MoreFiles.deleteRecursively;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+
+/**
+ * Tests needing a real cgroup run only when {@code -Dkillbill.test.cgroup.parent} points to a cgroup v2 group delegated
+ * to the current user and without processes, see {@link MySqlServerOptions.Builder#setCgroupParent(String)}.
+ */
+public class TestMySqlCgroup {
+
+    static final String CGROUP_PARENT_PROPERTY = "killbill.test.cgroup.parent";
+
+    static Path cgroupParent() {
+        final String parent = System.getProperty(CGROUP_PARENT_PROPERTY);
+        if (parent == null || parent.isEmpty()) {
+            throw new SkipException("-D" + CGROUP_PARENT_PROPERTY + " is not set");
+        }
+        return Path.of(parent);
+    }
+
+    @Test
+    public void testProcessInCgroup() throws Exception {
+        final Path parent = cgroupParent();
+        final Process process = new ProcessBuilder("sleep", "60").start();
+        final MySqlCgroup cgroup = MySqlCgroup.create(parent, "test-process-in-cgroup", 0, 0);
+        try {
+            Assert.assertEquals(cgroup.getDirectory(), parent.resolve("test-process-in-cgroup"));
+            cgroup.addProcess(process);
+
+            Assert.assertEquals(Files.readString(cgroup.getDirectory().resolve("cgroup.procs")).trim(), String.valueOf(process.pid()));
+            Assert.assertTrue(Files.readString(Path.of("/proc", String.valueOf(process.pid()), "cgroup")).contains("/test-process-in-cgroup\n"));
+        } finally {
+            process.destroyForcibly();
+            process.waitFor(10, TimeUnit.SECONDS);
+            cgroup.close();
+        }
+        Assert.assertFalse(Files.exists(parent.resolve("test-process-in-cgroup")));
+    }
+
+    @Test
+    public void testRejectParentWithProcesses() throws Exception {
+        final Path busy = Files.createDirectory(cgroupParent().resolve("test-busy-parent"));
+        final Process process = new ProcessBuilder("sleep", "60").start();
+        try {
+            Files.writeString(busy.resolve("cgroup.procs"), String.valueOf(process.pid()));
+            MySqlCgroup.create(busy, "child", 0, 0);
+            Assert.fail();
+        } catch (final IOException e) {
+            Assert.assertTrue(e.getMessage().contains("contains processes"), e.getMessage());
+            Assert.assertFalse(Files.exists(busy.resolve("child")));
+        } finally {
+            process.destroyForcibly();
+            process.waitFor(10, TimeUnit.SECONDS);
+            MySqlCgroup.deleteQuietly(busy);
+        }
+    }
+
+    @Test
+    public void testRejectNonCgroupParent() throws Exception {
+        final Path directory = Files.createTempDirectory("cgroup");
+        try {
+            MySqlCgroup.create(directory, "child", 256, 2);
+            Assert.fail();
+        } catch (final IOException e) {
+            Assert.assertTrue(e.getMessage().contains("is not a cgroup v2 group"), e.getMessage());
+            Assert.assertFalse(Files.exists(directory.resolve("child")));
+        } finally {
+            deleteRecursively(directory, ALLOW_INSECURE);
+        }
+    }
+}
@@ -17,6 +17,7 @@
 
 package org.killbill.testing.mysql;
 
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -39,6 +40,14 @@ public class TestMySqlServerOptions {
         Assert.assertEquals(options.getStartupWait(), TEN_SECONDS);
         Assert.assertEquals(options.getShutdownWait(), TEN_SECONDS);
         Assert.assertEquals(options.getCommandTimeout(), new Duration(30, TimeUnit.SECONDS));
+        Assert.assertTrue(options.isReapOrphanedInstances());
+        Assert.assertFalse(options.isLazyDatabaseCreation());
+        Assert.assertEquals(options.getSchemaScripts("any"), List.of());
+        Assert.assertEquals(options.getMaxMemoryInMb(), 0);
+        Assert.assertEquals(options.getMaxCpus(), 0);
+        Assert.assertNull(options.getCgroupParent());
+        Assert.assertFalse(options.isProxyEnabled());
+        Assert.assertEquals(options.getProxyPort(), 0);
 
         // Call #builder() without any arguments will throw RuntimeException
         try {
@@ -58,6 +67,48 @@ public class TestMySqlServerOptions {
     }
 
 
+    @Test
+    public void testInvalidProxySettings() {
+        try {
+            MySqlServerOptions.builder("any").setProxyEnabled(true).setProxyLatency(-1).build();
+            Assert.fail("RuntimeException should be thrown");
+        } catch (final RuntimeException e) {
+            Assert.assertEquals(e.getMessage(), "'proxyLatency', 'proxyJitter' and 'proxyBandwidthInKbPerSec' in MySqlServerOptions cannot be negative");
+        }
+
+        try {
+            MySqlServerOptions.builder("any").setProxyEnabled(true).setProxyResetProbability(2).build();
+            Assert.fail("RuntimeException should be thrown");
+        } catch (final RuntimeException e) {
+            Assert.assertEquals(e.getMessage(), "'proxyResetProbability' in MySqlServerOptions must be between 0 and 1");
+        }
+    }
+
+    @Test
+    public void testLazyDatabaseCreation() {
+        // Databases may be registered later on lazy instances
+        final MySqlServerOptions empty = MySqlServerOptions.builder().setLazyDatabaseCreation(true).build();
+        Assert.assertTrue(empty.isLazyDatabaseCreation());
+        Assert.assertEquals(empty.getDatabaseNames(), Set.of());
+
+        final MySqlServerOptions options = MySqlServerOptions.builder("db1", "db2")
+                                                             .setLazyDatabaseCreation(true)
+                                                             .addSchemaScript("db1", "/ddl/a.sql")
+                                                             .addSchemaScript("db1", "/ddl/b.sql")
+                                                             .build();
+        Assert.assertEquals(options.getSchemaScripts("db1"), List.of("/ddl/a.sql", "/ddl/b.sql"));
+        Assert.assertEquals(options.getSchemaScripts("db2"), List.of());
+        // Connecting directly must not create lazy databases without their schema scripts
+        Assert.assertFalse(options.getJdbcUrl("db1").contains("createDatabaseIfNotExist"));
+
+        try {
+            MySqlServerOptions.builder("db1").addSchemaScript("db3", "/ddl/a.sql").build();
+            Assert.fail("RuntimeException should be thrown");
+        } catch (final RuntimeException e) {
+            Assert.assertEquals(e.getMessage(), "Schema scripts declared for unknown database 'db3'");
+        }
+    }
+
     @Test
     public void testOptionalAttributes() {
         final MySqlServerOptions options = MySqlServerOptions
@@ -67,6 +118,15 @@ public class TestMySqlServerOptions {
                 .setStartupWait(30)
                 .setShutdownWait(30)
                 .setCommandTimeout(60)
+                .setReapOrphanedInstances(false)
+                .setMaxMemoryInMb(512)
+                .setMaxCpus(2)
+                .setCgroupParent("/sys/fs/cgroup/ci/mysql")
+                .setProxyEnabled(true)
+                .setProxyLatency(20)
+                .setProxyJitter(5)
+                .setProxyBandwidthInKbPerSec(1024)
+                .setProxyResetProbability(0.01)
                 .build();
 
         Assert.assertEquals(options.getUsername(), "any");
@@ -74,9 +134,22 @@ public class TestMySqlServerOptions {
         Assert.assertEquals(options.getStartupWait(), new Duration(30, TimeUnit.SECONDS));
         Assert.assertEquals(options.getShutdownWait(), new Duration(30, TimeUnit.SECONDS));
         Assert.assertEquals(options.getCommandTimeout(), new Duration(60, TimeUnit.SECONDS));
+        Assert.assertFalse(options.isReapOrphanedInstances());
+        Assert.assertEquals(options.getMaxMemoryInMb(), 512);
+        Assert.assertEquals(options.getMaxCpus(), 2);
+        Assert.assertEquals(options.getCgroupParent(), "/sys/fs/cgroup/ci/mysql");
+        Assert.assertTrue(options.isProxyEnabled());
+        Assert.assertNotEquals(options.getProxyPort(), 0);
+        Assert.assertEquals(options.getProxyLatency(), new Duration(20, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(options.getProxyJitter(), new Duration(5, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(options.getProxyBandwidthInKbPerSec(), 1024);
+        Assert.assertEquals(options.getProxyResetProbability(), 0.01);
 
         Assert.assertEquals(options.getJdbcUrl("any"),
                             "jdbc:mysql://localhost:"+ options.getPort() +"/any?user=any&password=any&useSSL=false&" +
                             "allowPublicKeyRetrieval=true&createDatabaseIfNotExist=true&allowMultiQueries=true&permitMysqlScheme=true");
+        Assert.assertEquals(options.getProxiedJdbcUrl("any"),
+                            "jdbc:mysql://localhost:"+ options.getProxyPort() +"/any?user=any&password=any&useSSL=false&" +
+                            "allowPublicKeyRetrieval=true&createDatabaseIfNotExist=true&allowMultiQueries=true&permitMysqlScheme=true");
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020-2022 Equinix, Inc
+ * Copyright 2014-2022 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.testing.mysql;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import io.airlift.units.Duration;
+
+import static com.google.common.io.MoreFiles.deleteRecursively;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+
+public class TestOrphanedInstanceReaper {
+
+    private static final Duration TEN_SECONDS = new Duration(10, TimeUnit.SECONDS);
+
+    private Path tempDirectory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        tempDirectory = Files.createTempDirectory("reaper");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        deleteRecursively(tempDirectory, ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testReapOrphanedInstance() throws Exception {
+        final Path directory = Files.createTempDirectory(tempDirectory, OrphanedInstanceReaper.DIRECTORY_PREFIX);
+
+        // Fake mysqld, started from the server directory
+        final Path mysqld = Files.createDirectories(directory.resolve("bin")).resolve("mysqld");
+        Files.copy(Path.of("/bin/sleep"), mysqld);
+        final Process server = new ProcessBuilder(mysqld.toString(), "60").start();
+
+        final Process owner = new ProcessBuilder("true").start();
+        owner.waitFor();
+        writeMarker(directory, owner.pid(), server.pid());
+
+        Assert.assertEquals(OrphanedInstanceReaper.reap(tempDirectory, TEN_SECONDS), 1);
+        Assert.assertTrue(server.waitFor(10, TimeUnit.SECONDS));
+        Assert.assertFalse(Files.exists(directory));
+    }
+
+    @Test
+    public void testKeepLiveInstance() throws Exception {
+        final Path directory = Files.createTempDirectory(tempDirectory, OrphanedInstanceReaper.DIRECTORY_PREFIX);
+        OrphanedInstanceReaper.writeMarker(directory);
+
+        Assert.assertEquals(OrphanedInstanceReaper.reap(tempDirectory, TEN_SECONDS), 0);
+        Assert.assertTrue(Files.exists(directory));
+    }
+
+    @Test
+    public void testNeverKillUnrelatedProcess() throws Exception {
+        final Path directory = Files.createTempDirectory(tempDirectory, OrphanedInstanceReaper.DIRECTORY_PREFIX);
+
+        // The recorded mysqld PID now belongs to a process outside of the server directory
+        final Process unrelated = new ProcessBuilder("sleep", "60").start();
+        try {
+            final Process owner = new ProcessBuilder("true").start();
+            owner.waitFor();
+            writeMarker(directory, owner.pid(), unrelated.pid());
+
+            Assert.assertEquals(OrphanedInstanceReaper.reap(tempDirectory, TEN_SECONDS), 1);
+            Assert.assertTrue(unrelated.isAlive());
+            Assert.assertFalse(Files.exists(directory));
+        } finally {
+            unrelated.destroyForcibly();
+        }
+    }
+
+    @Test
+    public void testReapThroughSymlinkedTempDirectory() throws Exception {
+        final Path directory = Files.createTempDirectory(tempDirectory, OrphanedInstanceReaper.DIRECTORY_PREFIX);
+        final Path mysqld = Files.createDirectories(directory.resolve("bin")).resolve("mysqld");
+        Files.copy(Path.of("/bin/sleep"), mysqld);
+        final Process server = new ProcessBuilder(mysqld.toString(), "60").start();
+
+        final Process owner = new ProcessBuilder("true").start();
+        owner.waitFor();
+        writeMarker(directory, owner.pid(), server.pid());
+
+        // Like java.io.tmpdir on macOS, /var/folders -> /private/var/folders
+        final Path link = Files.createSymbolicLink(tempDirectory.resolve("link"), tempDirectory);
+        try {
+            Assert.assertEquals(OrphanedInstanceReaper.reap(link, TEN_SECONDS), 1);
+            Assert.assertTrue(server.waitFor(10, TimeUnit.SECONDS));
+            Assert.assertFalse(Files.exists(directory));
+        } finally {
+            server.destroyForcibly();
+        }
+    }
+
+    @Test
+    public void testSkipMalformedMarker() throws Exception {
+        final Path directory = Files.createTempDirectory(tempDirectory, OrphanedInstanceReaper.DIRECTORY_PREFIX);
+        Files.writeString(directory.resolve(OrphanedInstanceReaper.MARKER_FILE), "owner.pid=abc\nowner.start=yesterday\n");
+
+        Assert.assertEquals(OrphanedInstanceReaper.reap(tempDirectory, TEN_SECONDS), 0);
+        Assert.assertTrue(Files.exists(directory));
+    }
+
+    @Test
+    public void testSkipDirectoryWithoutMarker() throws Exception {
+        final Path directory = Files.createTempDirectory(tempDirectory, OrphanedInstanceReaper.DIRECTORY_PREFIX);
+
+        Assert.assertEquals(OrphanedInstanceReaper.reap(tempDirectory, TEN_SECONDS), 0);
+        Assert.assertTrue(Files.exists(directory));
+    }
+
+    private static void writeMarker(final Path directory, final long ownerPid, final long mysqldPid) throws Exception {
+        final Properties marker = new Properties();
+        marker.setProperty("owner.pid", String.valueOf(ownerPid));
+        marker.setProperty("mysqld.pid", String.valueOf(mysqldPid));
+        try (final OutputStream out = Files.newOutputStream(directory.resolve(OrphanedInstanceReaper.MARKER_FILE))) {
+            marker.store(out, null);
+        }
+    }
+}
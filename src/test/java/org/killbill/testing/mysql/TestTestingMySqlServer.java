@@ -16,10 +16,19 @@ package org.killbill.testing.mysql;
 
 import org.testng.annotations.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import io.airlift.units.Duration;
 
 import static org.testng.Assert.*;
 
@@ -70,4 +79,210 @@ public class TestTestingMySqlServer {
             }
         }
     }
+
+    @Test
+    public void testLoadData() throws Exception {
+        final MySqlServerOptions options = MySqlServerOptions.builder("fixtures").build();
+        try (final TestingMySqlServer server = new TestingMySqlServer(options)) {
+            try (final Connection connection = DriverManager.getConnection(options.getJdbcUrl("fixtures"));
+                 final Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE person (id bigint PRIMARY KEY, name varchar(20))");
+                statement.execute("CREATE TABLE size (id bigint PRIMARY KEY, name varchar(20))");
+            }
+
+            server.loadData("fixtures",
+                            DataFixture.fromResource("person", "/fixtures/person.csv").setIgnoreLines(1).build(),
+                            DataFixture.fromResource("size", "/fixtures/size.tsv").tsv().build());
+
+            try (final Connection connection = DriverManager.getConnection(options.getJdbcUrl("fixtures"));
+                 final Statement statement = connection.createStatement()) {
+                try (final ResultSet resultSet = statement.executeQuery("SELECT name FROM person WHERE id = 2")) {
+                    assertTrue(resultSet.next());
+                    assertEquals(resultSet.getString(1), "p, 2");
+                }
+                try (final ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM size")) {
+                    assertTrue(resultSet.next());
+                    assertEquals(resultSet.getLong(1), 2L);
+                }
+            }
+
+            // Duplicate keys are only a warning for LOAD DATA LOCAL
+            try (final Connection connection = DriverManager.getConnection(options.getJdbcUrl("fixtures"));
+                 final Statement statement = connection.createStatement()) {
+                statement.execute("TRUNCATE TABLE person");
+            }
+            try {
+                server.loadData("fixtures", DataFixture.fromResource("person", "/fixtures/person_duplicate.csv").build());
+                fail("SQLException should be thrown");
+            } catch (final SQLException e) {
+                assertTrue(e.getMessage().contains("Duplicate entry"), e.getMessage());
+            }
+            server.loadData("fixtures", DataFixture.fromResource("person", "/fixtures/person_duplicate.csv").setFailOnWarnings(false).build());
+        }
+    }
+
+    @Test
+    public void testResourceBudget() throws Exception {
+        final MySqlServerOptions options = MySqlServerOptions.builder("any")
+                                                             .setMaxMemoryInMb(256)
+                                                             .setMaxCpus(2)
+                                                             .build();
+        final TestingMySqlServer server = new TestingMySqlServer(options);
+        try (final Connection connection = DriverManager.getConnection(options.getJdbcUrl("any"));
+             final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery("SELECT @@innodb_buffer_pool_size, @@innodb_read_io_threads")) {
+            assertTrue(resultSet.next());
+            assertEquals(resultSet.getLong(1), 128L * 1024 * 1024);
+            assertEquals(resultSet.getInt(2), 2);
+        } finally {
+            server.close();
+        }
+
+        final ResourceUsage resourceUsage = server.getResourceUsage();
+        assertNotNull(resourceUsage);
+        if (System.getProperty("os.name").startsWith("Linux")) {
+            assertNotNull(resourceUsage.getPeakMemory());
+            assertTrue(resourceUsage.getPeakMemory().toBytes() > 0);
+            assertNotNull(resourceUsage.getCpuTime());
+            assertTrue(resourceUsage.getCpuTime().toMillis() > 0);
+        }
+    }
+
+    @Test
+    public void testCgroup() throws Exception {
+        final Path parent = TestMySqlCgroup.cgroupParent();
+        final MySqlServerOptions options = MySqlServerOptions.builder("any")
+                                                             .setCgroupParent(parent.toString())
+                                                             .build();
+        final TestingMySqlServer server = new TestingMySqlServer(options);
+        final List<Path> cgroups;
+        try {
+            // The cgroup is named after the server directory
+            try (final Stream<Path> children = Files.list(parent)) {
+                cgroups = children.filter(child -> child.getFileName().toString().startsWith(OrphanedInstanceReaper.DIRECTORY_PREFIX))
+                                  .collect(Collectors.toList());
+            }
+            assertEquals(cgroups.size(), 1);
+            final String pid = Files.readString(cgroups.get(0).resolve("cgroup.procs")).trim();
+            assertEquals(Files.readString(Path.of("/proc", pid, "comm")).trim(), "mysqld");
+        } finally {
+            server.close();
+        }
+        assertFalse(Files.exists(cgroups.get(0)));
+    }
+
+    @Test
+    public void testProxy() throws Exception {
+        final MySqlServerOptions options = MySqlServerOptions.builder("any")
+                                                             .setProxyEnabled(true)
+                                                             .setProxyLatency(50)
+                                                             .build();
+        try (final TestingMySqlServer server = new TestingMySqlServer(options)) {
+            try (final Connection connection = DriverManager.getConnection(options.getProxiedJdbcUrl("any"));
+                 final Statement statement = connection.createStatement()) {
+                final long start = System.nanoTime();
+                try (final ResultSet resultSet = statement.executeQuery("SELECT 42")) {
+                    assertTrue(resultSet.next());
+                    assertEquals(resultSet.getInt(1), 42);
+                }
+                assertTrue(Duration.nanosSince(start).toMillis() >= 100);
+
+                server.resetProxyConnections();
+                try {
+                    statement.executeQuery("SELECT 42");
+                    fail("SQLException should be thrown");
+                } catch (final SQLException expected) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLazyDatabaseCreation() throws Exception {
+        final MySqlServerOptions options = MySqlServerOptions.builder("db1", "db2")
+                                                             .setLazyDatabaseCreation(true)
+                                                             .addSchemaScript("db1", "/ddl/account.sql")
+                                                             .build();
+        try (final TestingMySqlServer server = new TestingMySqlServer(options)) {
+            assertEquals(server.getUsedDatabaseNames(), Set.of());
+            assertFalse(databaseExists(options, "db1"));
+
+            // Bypassing TestingMySqlServer fails instead of creating the database without its schema scripts
+            try {
+                DriverManager.getConnection(options.getJdbcUrl("db1")).close();
+                fail("SQLException should be thrown");
+            } catch (final SQLException e) {
+                assertTrue(e.getMessage().contains("Unknown database"), e.getMessage());
+            }
+            assertFalse(databaseExists(options, "db1"));
+
+            try (final Connection connection = server.getConnection("db1");
+                 final Statement statement = connection.createStatement();
+                 final ResultSet resultSet = statement.executeQuery("SELECT name FROM account WHERE id = 1")) {
+                assertTrue(resultSet.next());
+                assertEquals(resultSet.getString(1), "a1");
+            }
+            // Schema scripts only run once
+            server.getJdbcUrl("db1");
+
+            server.registerDatabase("db3");
+            server.getJdbcUrl("db3");
+
+            assertEquals(server.getUsedDatabaseNames(), Set.of("db1", "db3"));
+            assertFalse(databaseExists(options, "db2"));
+        }
+    }
+
+    @Test
+    public void testBrokenSchemaScript() throws Exception {
+        final MySqlServerOptions options = MySqlServerOptions.builder("db1")
+                                                             .setLazyDatabaseCreation(true)
+                                                             .addSchemaScript("db1", "/ddl/broken.sql")
+                                                             .build();
+        try (final TestingMySqlServer server = new TestingMySqlServer(options)) {
+            // Retrying fails the same way, instead of with "database exists"
+            for (int i = 0; i < 2; i++) {
+                try {
+                    server.getJdbcUrl("db1");
+                    fail("SQLException should be thrown");
+                } catch (final SQLException e) {
+                    assertTrue(e.getMessage().contains("no_such_table"), e.getMessage());
+                }
+                assertFalse(databaseExists(options, "db1"));
+            }
+            assertEquals(server.getUsedDatabaseNames(), Set.of());
+        }
+    }
+
+    @Test
+    public void testUsedDatabaseNames() throws Exception {
+        final MySqlServerOptions options = MySqlServerOptions.builder("db1", "db2", "db3")
+                                                             .addSchemaScript("db3", "/ddl/account.sql")
+                                                             .build();
+        try (final TestingMySqlServer server = new TestingMySqlServer(options)) {
+            // Schema scripts run at startup don't count
+            assertEquals(server.getUsedDatabaseNames(), Set.of());
+
+            // Direct connections, as existing callers do
+            try (final Connection connection = DriverManager.getConnection(options.getJdbcUrl("db1"));
+                 final Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE test_table (c1 bigint PRIMARY KEY)");
+            }
+            try (final Connection connection = DriverManager.getConnection(options.getRootJdbcUrl());
+                 final Statement statement = connection.createStatement();
+                 final ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM db3.account")) {
+                assertTrue(resultSet.next());
+            }
+
+            assertEquals(server.getUsedDatabaseNames(), Set.of("db1", "db3"));
+        }
+    }
+
+    private static boolean databaseExists(final MySqlServerOptions options, final String databaseName) throws Exception {
+        try (final Connection connection = DriverManager.getConnection(options.getRootJdbcUrl());
+             final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery("SHOW DATABASES LIKE '" + databaseName + "'")) {
+            return resultSet.next();
+        }
+    }
 }
@@ -0,0 +1,2 @@
+CREATE TABLE account (id bigint PRIMARY KEY, name varchar(20));
+INSERT INTO account (id, name) VALUES (1, 'a1');
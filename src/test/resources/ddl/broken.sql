@@ -0,0 +1,2 @@
+CREATE TABLE account (id bigint PRIMARY KEY, name varchar(20));
+INSERT INTO no_such_table (id) VALUES (1);